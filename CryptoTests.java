@@ -1,52 +1,401 @@
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+/**
+ * Known-answer and differential tests for the SHAKE256, cSHAKE256 and
+ * KMACXOF256 implementation and the symmetric cryptogram built on it.
+ *
+ * Run with {@code java CryptoTests}. The process exits with status 1 if any
+ * test fails. Set {@code -Dcrypto.tests.largeBytes=<n>} to also stream an
+ * n-byte input (multi-GB is fine) through every streaming path.
+ */
 public class CryptoTests {
-    public static void main(String[] args) {
+
+    // SHAKE256 rate in bytes
+    private static final int RATE = 136;
+
+    private static final Random random = new Random(487);
+
+    private static int failures;
+
+    public static void main(String[] args) throws Exception {
+        testSHAKE256();
+        testCSHAKE256();
         testKMACXOF256();
+        testStreamingEquivalence();
+        testMultiKeyEquivalence();
+        testParallelEquivalence();
+        testLongOutput();
+        testEncryptRoundTrip();
+        testDuplexRoundTrip();
+        testHexCodec();
+        testLargeInput(Long.getLong("crypto.tests.largeBytes", 0));
+
+        if (failures > 0) {
+            System.out.println(failures + " test(s) failed");
+            System.exit(1);
+        }
+        System.out.println("All tests passed");
+    }
+
+    // FIPS 202 / NIST example values, first 512 bits of output
+    public static void testSHAKE256() {
+        byte[] a3 = new byte[200];
+        Arrays.fill(a3, (byte) 0xA3);
+
+        check("SHAKE256 empty message", KMACXOF256.SHAKE256(new byte[0], 512),
+                "46b9dd2b0ba88d13233b3feb743eeb243fcd52ea62b81b82b50c27646ed5762f"
+                + "d75dc4ddd8c0f200cb05019d67b592f6fc821c49479ab48640292eacb3b7c4be");
+        check("SHAKE256 1600-bit message", KMACXOF256.SHAKE256(a3, 512),
+                "cd8a920ed141aa0407a22d59288652e9d9f1a7ee0c1e7c1ca699424da84a904d"
+                + "2d700caae7396ece96604440577da4f3aa22aeb8857f961c4cd8e06f0ae6610b");
+        check("SHAKE256 \"abc\"", KMACXOF256.SHAKE256("abc".getBytes(), 512),
+                "483366601360a8771c6863080cc4114d8db44530f8f1e1ee4f94ea37e78b5739"
+                + "d5a15bef186a5386c75744c0527e1faa9f8726e462a12a4feb06bd8801e751e4");
+        check("cSHAKE256 with empty N and S is SHAKE256",
+                KMACXOF256.cSHAKE256(a3, 512, new byte[0], new byte[0]), KMACXOF256.SHAKE256(a3, 512));
+    }
+
+    // NIST SP 800-185 cSHAKE samples #3 and #4
+    public static void testCSHAKE256() {
+        check("cSHAKE256 Sample #3",
+                KMACXOF256.cSHAKE256(range(4), 512, new byte[0], "Email Signature".getBytes()),
+                "d008828e2b80ac9d2218ffee1d070c48b8e4c87bff32c9699d5b6896eee0edd1"
+                + "64020e2be0560858d9c00c037e34a96937c561a74c412bb4c746469527281c8c");
+        check("cSHAKE256 Sample #4",
+                KMACXOF256.cSHAKE256(range(200), 512, new byte[0], "Email Signature".getBytes()),
+                "07dc27b11e51fbac75bc7b3c1d983e8b4b85fb1defaf218912ac86430273091727"
+                + "f42b17ed1df63e8ec118f04b23633c1dfb1574c8fb55cb45da8e25afb092bb");
     }
 
+    // NIST SP 800-185 KMACXOF samples #4, #5 and #6
     public static void testKMACXOF256() {
-        byte[] key = hexStringToByteArray(R.testData_KMAC.KEY_HEX);
-        byte[] data = hexStringToByteArray(R.testData_KMAC.DATA_HEX);
-        int outputLength = 256;
-        byte[] customString = "".getBytes();
+        byte[] key = HexCodec.decode("404142434445464748494a4b4c4d4e4f505152535455565758595a5b5c5d5e5f");
 
-        byte[] expectedOutput = hexStringToByteArray(R.testData_KMAC.OUTVAL_HEX);
-        byte[] actualOutput = KMACXOF256.KMACXOF256(key, data, outputLength, customString);
+        check("KMACXOF256 Sample #4",
+                KMACXOF256.KMACXOF256(key, range(4), 512, "My Tagged Application".getBytes()),
+                "1755133f1534752aad0748f2c706fb5c784512cab835cd15676b16c0c6647fa9"
+                + "6faa7af634a0bf8ff6df39374fa00fad9a39e322a7c92065a64eb1fb0801eb2b");
+        check("KMACXOF256 Sample #5",
+                KMACXOF256.KMACXOF256(key, range(200), 512, new byte[0]),
+                "ff7b171f1e8a2b24683eed37830ee797538ba8dc563f6da1e667391a75edc02c"
+                + "a633079f81ce12a25f45615ec89972031d18337331d24ceb8f8ca8e6a19fd98b");
+        check("KMACXOF256 Sample #6",
+                KMACXOF256.KMACXOF256(key, range(200), 512, "My Tagged Application".getBytes()),
+                "d5be731c954ed7732846bb59dbe3a8e30f83e77a4bff4459f2f1c2b4ecebb8ce"
+                + "67ba01c62e8ab8578d2d499bd1bb276768781190020a306a97de281dcc30305d");
+    }
 
-        boolean testPassed = Arrays.equals(actualOutput, expectedOutput);
+    // One-shot vs. read-ahead streaming with assorted buffer sizes and short reads
+    public static void testStreamingEquivalence() throws IOException {
+        int[] bufferSizes = {1, RATE - 1, RATE, RATE + 1, 4096};
+        for (int len : boundaryLengths()) {
+            byte[] key = randomBytes(random.nextInt(80));
+            byte[] custom = randomBytes(random.nextInt(20));
+            byte[] msg = randomBytes(len);
+            byte[] expected = KMACXOF256.KMACXOF256(key, msg, 512, custom);
 
-        if (testPassed) {
-            System.out.println("KMACXOF256 Sample #1 Test Passed");
-        } else {
-            System.out.println("KMACXOF256 Sample #1 Test Failed");
-            System.out.println("Expected: " + Arrays.toString(expectedOutput));
-            System.out.println("Actual  : " + Arrays.toString(actualOutput));
+            for (int size : bufferSizes) {
+                byte[] actual = KMACXOF256.KMACXOF256(key, new ByteArrayInputStream(msg), 512, custom,
+                        1 + random.nextInt(4), size);
+                if (!Arrays.equals(expected, actual)) {
+                    fail("Streaming KMACXOF256, length " + len + ", buffer " + size, expected, actual);
+                    return;
+                }
+            }
+            byte[] chunked = KMACXOF256.KMACXOF256(key, new ChunkedInputStream(msg), 512, custom);
+            if (!Arrays.equals(expected, chunked)) {
+                fail("Chunked KMACXOF256, length " + len, expected, chunked);
+                return;
+            }
+        }
+        pass("Streaming KMACXOF256 matches one-shot at boundary lengths");
+    }
+
+    // Multi-key fan-out vs. one call per key
+    public static void testMultiKeyEquivalence() throws IOException {
+        byte[][] keys = {new byte[0], randomBytes(32), randomBytes(RATE), randomBytes(300)};
+        byte[][] customs = {"D".getBytes(), "T".getBytes(), new byte[0], randomBytes(RATE + 1)};
+        for (int len : boundaryLengths()) {
+            byte[] msg = randomBytes(len);
+            byte[][] fromArray = KMACXOF256.KMACXOF256(keys, msg, 512, customs);
+            byte[][] fromStream = KMACXOF256.KMACXOF256(keys, new ChunkedInputStream(msg), 512, customs);
+            for (int i = 0; i < keys.length; i++) {
+                byte[] expected = KMACXOF256.KMACXOF256(keys[i], msg, 512, customs[i]);
+                if (!Arrays.equals(expected, fromArray[i]) || !Arrays.equals(expected, fromStream[i])) {
+                    fail("Multi-key KMACXOF256, length " + len + ", key " + i, expected, fromStream[i]);
+                    return;
+                }
+            }
+        }
+        pass("Multi-key KMACXOF256 matches one call per key");
+    }
+
+    // The same inputs hashed concurrently on several threads
+    public static void testParallelEquivalence() throws Exception {
+        int[] lengths = boundaryLengths();
+        byte[][] msgs = new byte[lengths.length][];
+        byte[][] expected = new byte[lengths.length][];
+        for (int i = 0; i < lengths.length; i++) {
+            msgs[i] = randomBytes(lengths[i]);
+            expected[i] = KMACXOF256.KMACXOF256("k".getBytes(), msgs[i], 256, "P".getBytes());
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<byte[]>> results = new ArrayList<>();
+            for (byte[] msg : msgs) {
+                results.add(pool.submit(() ->
+                        KMACXOF256.KMACXOF256("k".getBytes(), new ByteArrayInputStream(msg), 256, "P".getBytes())));
+            }
+            for (int i = 0; i < msgs.length; i++) {
+                byte[] actual = results.get(i).get();
+                if (!Arrays.equals(expected[i], actual)) {
+                    fail("Parallel KMACXOF256, length " + lengths[i], expected[i], actual);
+                    return;
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+        pass("Parallel KMACXOF256 matches sequential");
+    }
+
+    // Longer outputs extend shorter ones across squeeze block boundaries
+    public static void testLongOutput() {
+        byte[] msg = randomBytes(50);
+        byte[] longest = KMACXOF256.KMACXOF256("k".getBytes(), msg, 8 * 4 * RATE, "X".getBytes());
+        for (int bytes : new int[]{1, RATE - 1, RATE, RATE + 1, 3 * RATE}) {
+            byte[] shorter = KMACXOF256.KMACXOF256("k".getBytes(), msg, 8 * bytes, "X".getBytes());
+            if (!Arrays.equals(shorter, Arrays.copyOf(longest, bytes))) {
+                fail("KMACXOF256 output prefix, " + bytes + " bytes", Arrays.copyOf(longest, bytes), shorter);
+                return;
+            }
+        }
+        pass("KMACXOF256 outputs are prefixes of longer outputs");
+    }
+
+    // encryptWithKMAC / decryptWithKMAC round trip and tamper detection
+    public static void testEncryptRoundTrip() {
+        for (int len : boundaryLengths()) {
+            byte[] msg = randomBytes(len);
+            byte[] cryptogram = TUI.encryptWithKMAC(msg, "passphrase");
+            if (cryptogram.length != msg.length + 128) {
+                fail("Cryptogram length for " + len + "-byte message");
+                return;
+            }
+            byte[] decrypted = TUI.decryptWithKMAC(cryptogram, "passphrase");
+            if (!Arrays.equals(msg, decrypted)) {
+                fail("Encrypt/decrypt round trip, length " + len, msg, decrypted);
+                return;
+            }
+        }
+
+        byte[] cryptogram = TUI.encryptWithKMAC("attack at dawn".getBytes(), "passphrase");
+        expectRejected("Wrong passphrase is rejected", cryptogram, "Passphrase");
+        for (int pos : new int[]{0, 64, cryptogram.length - 1}) {
+            byte[] tampered = cryptogram.clone();
+            tampered[pos] ^= 1;
+            expectRejected("Tampered byte " + pos + " is rejected", tampered, "passphrase");
+        }
+        pass("Encrypt/decrypt round trip");
+    }
+
+    // Single-pass duplex mode round trip, tamper detection and format dispatch
+    public static void testDuplexRoundTrip() {
+        for (int len : boundaryLengths()) {
+            byte[] msg = randomBytes(len);
+            byte[] cryptogram = TUI.encryptWithDuplex(msg, "passphrase");
+            byte[] decrypted = TUI.decryptCryptogram(cryptogram, "passphrase");
+            if (!Arrays.equals(msg, decrypted)) {
+                fail("Duplex encrypt/decrypt round trip, length " + len, msg, decrypted);
+                return;
+            }
+        }
+
+        byte[] msg = "attack at dawn".getBytes();
+        byte[] cryptogram = TUI.encryptWithDuplex(msg, "passphrase");
+        if (Arrays.equals(msg, Arrays.copyOfRange(cryptogram, 68, 68 + msg.length))) {
+            fail("Duplex ciphertext differs from plaintext");
+        }
+        check("KMAC cryptogram decrypts through dispatch",
+                TUI.decryptCryptogram(TUI.encryptWithKMAC(msg, "passphrase"), "passphrase"), msg);
+        try {
+            TUI.decryptWithDuplex(cryptogram, "Passphrase");
+            fail("Duplex wrong passphrase is rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        for (int pos : new int[]{4, 68, 68 + msg.length - 1, cryptogram.length - 1}) {
+            byte[] tampered = cryptogram.clone();
+            tampered[pos] ^= 1;
+            try {
+                TUI.decryptWithDuplex(tampered, "passphrase");
+                fail("Duplex tampered byte " + pos + " is rejected");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+
+        byte[] longKey = randomBytes(3 * RATE);
+        byte[] body = randomBytes(5 * RATE + 7);
+        byte[] wrapped = KMACXOF256.spongeWrap(longKey, body, 8 * 2 * RATE);
+        check("spongeWrap with long key and tag", KMACXOF256.spongeUnwrap(longKey, wrapped, 8 * 2 * RATE), body);
+        pass("Duplex encrypt/decrypt round trip");
+    }
+
+    // HexCodec against the straightforward Integer-based conversion
+    public static void testHexCodec() {
+        byte[] bytes = randomBytes(4096);
+        StringBuilder expected = new StringBuilder();
+        for (byte b : bytes) {
+            expected.append(String.format("%02x", b & 0xFF));
+        }
+        check("HexCodec encode", HexCodec.encode(bytes).getBytes(), expected.toString().getBytes());
+        check("HexCodec decode", HexCodec.decode(expected.toString().toUpperCase()), bytes);
+        check("HexCodec decode skips whitespace", HexCodec.decode(" 0a\n0B ff\t"), new byte[]{10, 11, -1});
+    }
+
+    // Opt-in: stream a generated input of the given size through every streaming path
+    public static void testLargeInput(long size) throws IOException {
+        if (size <= 0) return;
+
+        byte[][] keys = {"a".getBytes(), "b".getBytes()};
+        byte[][] customs = {"D".getBytes(), "T".getBytes()};
+        byte[] single = KMACXOF256.KMACXOF256(keys[0], new GeneratedInputStream(size), 512, customs[0]);
+        byte[] smallBuffers = KMACXOF256.KMACXOF256(keys[0], new GeneratedInputStream(size), 512, customs[0],
+                2, RATE + 1);
+        byte[][] multi = KMACXOF256.KMACXOF256(keys, new GeneratedInputStream(size), 512, customs);
+
+        if (!Arrays.equals(single, smallBuffers) || !Arrays.equals(single, multi[0])) {
+            fail("Large input (" + size + " bytes) streaming paths agree", single, multi[0]);
+            return;
+        }
+        if (size <= 1 << 24) {
+            byte[] all = new GeneratedInputStream(size).readAllBytes();
+            check("Large input (" + size + " bytes) matches one-shot",
+                    KMACXOF256.KMACXOF256(keys[1], all, 512, customs[1]), multi[1]);
+            return;
         }
+        pass("Large input (" + size + " bytes) streaming paths agree");
     }
 
     public static byte[] hexStringToByteArray(String s) {
-        // Remove spaces or other delimiters from hex string
-        s = s.replaceAll("\\s", "");
+        return HexCodec.decode(s);
+    }
+
+    // Every length up to three rate blocks past the KMAC prefix, plus a few larger ones
+    private static int[] boundaryLengths() {
+        int[] lengths = new int[3 * RATE + 4 + 3];
+        for (int i = 0; i <= 3 * RATE + 3; i++) {
+            lengths[i] = i;
+        }
+        lengths[3 * RATE + 4] = 10 * RATE - 1;
+        lengths[3 * RATE + 5] = 10 * RATE;
+        lengths[3 * RATE + 6] = 70000;
+        return lengths;
+    }
 
-        // Check if the string length is even
-        if (s.length() % 2 != 0) {
-            throw new IllegalArgumentException("Hex string must have an even length");
+    private static byte[] range(int n) {
+        byte[] out = new byte[n];
+        for (int i = 0; i < n; i++) {
+            out[i] = (byte) i;
         }
+        return out;
+    }
 
-        // Validate the string contains only valid hex characters
-        if (!s.matches("[0-9A-Fa-f]+")) {
-            throw new IllegalArgumentException("Hex string contains invalid characters");
+    private static byte[] randomBytes(int n) {
+        byte[] out = new byte[n];
+        random.nextBytes(out);
+        return out;
+    }
+
+    private static void expectRejected(String name, byte[] cryptogram, String pw) {
+        try {
+            TUI.decryptWithKMAC(cryptogram, pw);
+            fail(name);
+        } catch (IllegalArgumentException e) {
+            // expected
         }
+    }
 
-        int len = s.length();
-        byte[] data = new byte[len / 2];
+    private static void check(String name, byte[] actual, String expectedHex) {
+        check(name, actual, HexCodec.decode(expectedHex));
+    }
 
-        for (int i = 0; i < len; i += 2) {
-            data[i / 2] = (byte) ((Character.digit(s.charAt(i), 16) << 4)
-                    + Character.digit(s.charAt(i + 1), 16));
+    private static void check(String name, byte[] actual, byte[] expected) {
+        if (Arrays.equals(actual, expected)) {
+            pass(name);
+        } else {
+            fail(name, expected, actual);
         }
-        return data;
     }
 
-}
\ No newline at end of file
+    private static void pass(String name) {
+        System.out.println(name + " Test Passed");
+    }
+
+    private static void fail(String name) {
+        failures++;
+        System.out.println(name + " Test Failed");
+    }
+
+    private static void fail(String name, byte[] expected, byte[] actual) {
+        fail(name);
+        System.out.println("Expected: " + HexCodec.encode(expected));
+        System.out.println("Actual  : " + HexCodec.encode(actual));
+    }
+
+    // Returns short reads of random length to exercise partial-block absorption
+    private static class ChunkedInputStream extends ByteArrayInputStream {
+
+        ChunkedInputStream(byte[] buf) {
+            super(buf);
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) {
+            return super.read(b, off, Math.min(len, 1 + random.nextInt(2 * RATE)));
+        }
+    }
+
+    // Deterministic pseudorandom bytes of a fixed length, generated on the fly
+    private static class GeneratedInputStream extends InputStream {
+
+        private final long size;
+        private long pos;
+
+        GeneratedInputStream(long size) {
+            this.size = size;
+        }
+
+        @Override
+        public int read() {
+            if (pos >= size) return -1;
+            return next();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (pos >= size) return -1;
+            int n = (int) Math.min(len, size - pos);
+            for (int i = 0; i < n; i++) {
+                b[off + i] = (byte) next();
+            }
+            return n;
+        }
+
+        private int next() {
+            long x = pos++ * 0x9E3779B97F4A7C15L;
+            return (int) (x >>> 56);
+        }
+    }
+}
@@ -0,0 +1,189 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+/**
+ *  Project 1 TCSS 487 With Palo Barreto
+ *
+ * Table-driven hexadecimal codec. Encoding emits lower-case digits; decoding
+ * accepts either case and skips whitespace anywhere in the input. Besides the
+ * whole-array methods there are streaming variants so large cryptograms can be
+ * converted without building the whole hex string in memory.
+ *
+ * @author Arsh Singh
+ * @author Hassan Ali
+ */
+
+public final class HexCodec {
+
+    // Chunk size used by the stream variants
+    private static final int CHUNK = 8192;
+
+    // Lower-case hex digits as ASCII bytes
+    private static final byte[] DIGITS = "0123456789abcdef".getBytes();
+
+    // Nibble value of each ASCII character, -1 for non-hex, -2 for whitespace
+    private static final byte[] VALUES = new byte[128];
+
+    static {
+        Arrays.fill(VALUES, (byte) -1);
+        for (int i = 0; i < 10; i++) VALUES['0' + i] = (byte) i;
+        for (int i = 0; i < 6; i++) {
+            VALUES['a' + i] = (byte) (10 + i);
+            VALUES['A' + i] = (byte) (10 + i);
+        }
+        for (char c : new char[]{' ', '\t', '\n', '\r', '\f', 0x0B}) VALUES[c] = -2;
+    }
+
+    private HexCodec() {
+    }
+
+    /**
+     * Convert byte array to hexadecimal string.
+     *
+     * @param bytes  Input byte array
+     * @return       Hexadecimal string
+     */
+    public static String encode(byte[] bytes) {
+        char[] out = new char[bytes.length * 2];
+        for (int i = 0, j = 0; i < bytes.length; i++) {
+            out[j++] = (char) DIGITS[(bytes[i] >>> 4) & 0xF];
+            out[j++] = (char) DIGITS[bytes[i] & 0xF];
+        }
+        return new String(out);
+    }
+
+    /**
+     * Convert hexadecimal characters to a byte array, skipping whitespace.
+     *
+     * @param s  Input characters
+     * @return   Byte array
+     * @throws IllegalArgumentException  If a character is not hex or the digit count is odd
+     */
+    public static byte[] decode(CharSequence s) {
+        byte[] out = new byte[s.length() / 2];
+        int len = 0;
+        int hi = -1;
+        for (int i = 0; i < s.length(); i++) {
+            int v = value(s.charAt(i));
+            if (v == -2) continue;
+            if (hi < 0) {
+                hi = v;
+            } else {
+                out[len++] = (byte) ((hi << 4) | v);
+                hi = -1;
+            }
+        }
+        if (hi >= 0) throw new IllegalArgumentException("Hex string must have an even number of digits");
+        return len == out.length ? out : Arrays.copyOf(out, len);
+    }
+
+    /**
+     * Encode as many bytes as fit from {@code in} into {@code out}. Both buffers
+     * are advanced past what was consumed and produced.
+     *
+     * @param in   Source bytes
+     * @param out  Destination characters
+     */
+    public static void encode(ByteBuffer in, CharBuffer out) {
+        int n = Math.min(in.remaining(), out.remaining() / 2);
+        for (int i = 0; i < n; i++) {
+            byte b = in.get();
+            out.put((char) DIGITS[(b >>> 4) & 0xF]);
+            out.put((char) DIGITS[b & 0xF]);
+        }
+    }
+
+    /**
+     * Decode as many complete digit pairs as fit from {@code in} into {@code out},
+     * skipping whitespace. A trailing unpaired digit is left in {@code in} so that
+     * the caller can supply the rest of the input and call again.
+     *
+     * @param in   Source characters
+     * @param out  Destination bytes
+     * @throws IllegalArgumentException  If a character is not hex
+     */
+    public static void decode(CharBuffer in, ByteBuffer out) {
+        while (out.hasRemaining()) {
+            int start = in.position();
+            int hi = nextDigit(in);
+            if (hi < 0) return;
+            int lo = nextDigit(in);
+            if (lo < 0) {
+                in.position(start);
+                return;
+            }
+            out.put((byte) ((hi << 4) | lo));
+        }
+    }
+
+    /**
+     * Read bytes until the end of {@code in} and write their hex digits as ASCII to {@code out}.
+     *
+     * @param in   Source of raw bytes, not closed
+     * @param out  Destination for ASCII hex, not closed
+     * @throws IOException  If reading or writing fails
+     */
+    public static void encode(InputStream in, OutputStream out) throws IOException {
+        byte[] src = new byte[CHUNK];
+        byte[] dst = new byte[CHUNK * 2];
+        int n;
+        while ((n = in.read(src)) != -1) {
+            for (int i = 0, j = 0; i < n; i++) {
+                dst[j++] = DIGITS[(src[i] >>> 4) & 0xF];
+                dst[j++] = DIGITS[src[i] & 0xF];
+            }
+            out.write(dst, 0, n * 2);
+        }
+    }
+
+    /**
+     * Read ASCII hex until the end of {@code in} and write the decoded bytes to {@code out},
+     * skipping whitespace.
+     *
+     * @param in   Source of ASCII hex, not closed
+     * @param out  Destination for raw bytes, not closed
+     * @throws IOException  If reading or writing fails
+     * @throws IllegalArgumentException  If a character is not hex or the digit count is odd
+     */
+    public static void decode(InputStream in, OutputStream out) throws IOException {
+        byte[] src = new byte[CHUNK];
+        byte[] dst = new byte[CHUNK / 2 + 1];
+        int hi = -1;
+        int n;
+        while ((n = in.read(src)) != -1) {
+            int len = 0;
+            for (int i = 0; i < n; i++) {
+                int v = value((char) (src[i] & 0xFF));
+                if (v == -2) continue;
+                if (hi < 0) {
+                    hi = v;
+                } else {
+                    dst[len++] = (byte) ((hi << 4) | v);
+                    hi = -1;
+                }
+            }
+            out.write(dst, 0, len);
+        }
+        if (hi >= 0) throw new IllegalArgumentException("Hex string must have an even number of digits");
+    }
+
+    // Skip whitespace and return the next nibble, or -1 if the buffer runs out
+    private static int nextDigit(CharBuffer in) {
+        while (in.hasRemaining()) {
+            int v = value(in.get());
+            if (v != -2) return v;
+        }
+        return -1;
+    }
+
+    // Nibble value of a hex digit, -2 for whitespace
+    private static int value(char c) {
+        int v = c < 128 ? VALUES[c] : -1;
+        if (v == -1) throw new IllegalArgumentException("Hex string contains invalid characters");
+        return v;
+    }
+}
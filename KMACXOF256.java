@@ -1,3 +1,7 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
 import java.util.Arrays;
 import java.math.BigInteger;
 
@@ -140,14 +144,24 @@ public class KMACXOF256 {
             stcml = keccak(xorStates(stcml, st), 1600, 24);
         }
 
-        long[] out = {};
-        int offset = 0;
-        do {
-            out = Arrays.copyOf(out, offset + rate / 64);
+        return squeeze(stcml, bitLen, rate);
+    }
+
+    /**
+     * Squeeze the desired number of bits out of an absorbed sponge state.
+     *
+     * @param stcml   Absorbed Keccak state
+     * @param bitLen  Bit length
+     * @param rate    Rate
+     * @return        Pseudorandom output
+     */
+    private static byte[] squeeze(long[] stcml, int bitLen, int rate) {
+        int blocks = Math.max(1, (int) (((long) bitLen + rate - 1) / rate));
+        long[] out = new long[blocks * (rate / 64)];
+        for (int offset = 0; offset < out.length; offset += rate / 64) {
+            if (offset > 0) stcml = keccak(stcml, 1600, 24);
             System.arraycopy(stcml, 0, out, offset, rate / 64);
-            offset += rate / 64;
-            stcml = keccak(stcml, 1600, 24);
-        } while (out.length * 64 < bitLen);
+        }
 
         return stateToByteArray(out, bitLen);
     }
@@ -199,7 +213,8 @@ public class KMACXOF256 {
 
         byte[] fin = concat(encodeString(functionName), encodeString(customStr));
         fin = concat(bytePad(fin, 136), in);
-        fin = concat(fin, new byte[]{0x04});
+        int bytesToPad = 136 - fin.length % 136;
+        fin = concat(fin, new byte[]{bytesToPad == 1 ? (byte) 0x84 : 0x04});
 
         return sponge(fin, bitLength, 512);
     }
@@ -219,35 +234,224 @@ public class KMACXOF256 {
     }
 
     /**
-     * Encode BigInteger using right encoding.
+     * Compute KMACXOF256 hash of a stream with custom parameters and key,
+     * using the default read-ahead configuration.
      *
-     * @param x  BigInteger to encode
-     * @return   Encoded byte array
+     * @param key           Key byte array
+     * @param in            Input stream, read to the end but not closed
+     * @param bitLength     Bit length
+     * @param customString  Custom string
+     * @return              KMACXOF256 hash
+     * @throws IOException  If reading the stream fails
      */
-    private static byte[] rightEncode(BigInteger x) {
-        assert 0 < x.compareTo(new BigInteger(String.valueOf(Math.pow(2, 2040))));
+    public static byte[] KMACXOF256(byte[] key, InputStream in, int bitLength, byte[] customString) throws IOException {
+        return KMACXOF256(key, in, bitLength, customString,
+                ReadAheadReader.DEFAULT_BUFFER_COUNT, ReadAheadReader.DEFAULT_BUFFER_SIZE);
+    }
 
-        int n = 1;
+    /**
+     * Compute KMACXOF256 hash of a stream with custom parameters and key.
+     * The stream is read on a background thread into a ring of reusable buffers
+     * so that I/O overlaps with the Keccak permutation.
+     *
+     * @param key           Key byte array
+     * @param in            Input stream, read to the end but not closed
+     * @param bitLength     Bit length
+     * @param customString  Custom string
+     * @param bufferCount   Number of read-ahead buffers
+     * @param bufferSize    Size of each read-ahead buffer in bytes
+     * @return              KMACXOF256 hash
+     * @throws IOException  If reading the stream fails
+     */
+    public static byte[] KMACXOF256(byte[] key, InputStream in, int bitLength, byte[] customString,
+                                    int bufferCount, int bufferSize) throws IOException {
+        Sponge sponge = kmacSponge(key, customString);
+        try (ReadAheadReader reader = new ReadAheadReader(in, bufferCount, bufferSize)) {
+            ByteBuffer buf;
+            while ((buf = reader.take()) != null) {
+                sponge.absorb(buf.array(), 0, buf.limit());
+                reader.recycle(buf);
+            }
+        }
+        return kmacFinish(sponge, bitLength);
+    }
 
-        while (x.compareTo(new BigInteger(String.valueOf((int) Math.pow(2, (8 * n))))) != -1) {
-            n++;
+    /**
+     * Compute KMACXOF256 hashes of one input under several keys and custom
+     * strings at once. The input is absorbed into every keyed sponge in the same
+     * pass, so it is read and copied only once.
+     *
+     * @param keys           Key byte arrays, one per output
+     * @param in             Input byte array
+     * @param bitLength      Bit length of every output
+     * @param customStrings  Custom strings, one per key
+     * @return               KMACXOF256 hashes in key order
+     */
+    public static byte[][] KMACXOF256(byte[][] keys, byte[] in, int bitLength, byte[][] customStrings) {
+        Sponge[] sponges = kmacSponges(keys, customStrings);
+        absorbAll(sponges, in, 0, in.length);
+        return kmacFinish(sponges, bitLength);
+    }
+
+    /**
+     * Compute KMACXOF256 hashes of one stream under several keys and custom
+     * strings at once. Each chunk of the stream is read once and absorbed into
+     * every keyed sponge before the next chunk is read.
+     *
+     * @param keys           Key byte arrays, one per output
+     * @param in             Input stream, read to the end but not closed
+     * @param bitLength      Bit length of every output
+     * @param customStrings  Custom strings, one per key
+     * @return               KMACXOF256 hashes in key order
+     * @throws IOException   If reading the stream fails
+     */
+    public static byte[][] KMACXOF256(byte[][] keys, InputStream in, int bitLength, byte[][] customStrings)
+            throws IOException {
+        Sponge[] sponges = kmacSponges(keys, customStrings);
+        try (ReadAheadReader reader = new ReadAheadReader(in,
+                ReadAheadReader.DEFAULT_BUFFER_COUNT, ReadAheadReader.DEFAULT_BUFFER_SIZE)) {
+            ByteBuffer buf;
+            while ((buf = reader.take()) != null) {
+                absorbAll(sponges, buf.array(), 0, buf.limit());
+                reader.recycle(buf);
+            }
         }
+        return kmacFinish(sponges, bitLength);
+    }
 
-        byte[] xBytes = x.toByteArray();
+    /**
+     * Encrypt and authenticate in a single pass with a keyed duplex sponge
+     * (SpongeWrap construction over the Keccak permutation). Each rate block of
+     * plaintext costs one permutation.
+     *
+     * @param key           Key byte array
+     * @param in            Plaintext byte array
+     * @param tagBitLength  Tag bit length
+     * @return              Ciphertext followed by the tag
+     */
+    public static byte[] spongeWrap(byte[] key, byte[] in, int tagBitLength) {
+        Duplex duplex = new Duplex(key);
+        byte[] out = new byte[in.length + tagBitLength / 8];
+        duplex.crypt(in, 0, in.length, out, true);
+        duplex.tag(out, in.length, tagBitLength / 8);
+        return out;
+    }
 
-        if ((xBytes[0] == 0) && (xBytes.length > 1)) {
-            byte[] temp = new byte[xBytes.length - 1];
-            System.arraycopy(xBytes, 1, temp, 0, xBytes.length - 1);
-            xBytes = temp;
+    /**
+     * Decrypt and verify a ciphertext produced by {@link #spongeWrap}.
+     *
+     * @param key           Key byte array
+     * @param in            Ciphertext followed by the tag
+     * @param tagBitLength  Tag bit length
+     * @return              Plaintext byte array
+     * @throws IllegalArgumentException  If the tag does not match
+     */
+    public static byte[] spongeUnwrap(byte[] key, byte[] in, int tagBitLength) {
+        int tagLen = tagBitLength / 8;
+        if (in.length < tagLen) throw new IllegalArgumentException("Cryptogram too short.");
+
+        Duplex duplex = new Duplex(key);
+        int len = in.length - tagLen;
+        byte[] out = new byte[len];
+        duplex.crypt(in, 0, len, out, false);
+        byte[] tag = new byte[tagLen];
+        duplex.tag(tag, 0, tagLen);
+
+        if (!MessageDigest.isEqual(tag, Arrays.copyOfRange(in, len, in.length))) {
+            Arrays.fill(out, (byte) 0);
+            throw new IllegalArgumentException("Mismatch on tags");
         }
+        return out;
+    }
 
-        byte[] output = new byte[xBytes.length + 1];
+    /**
+     * Create one KMAC sponge per key and custom string pair.
+     *
+     * @param keys           Key byte arrays
+     * @param customStrings  Custom strings
+     * @return               Sponges ready to absorb the message
+     */
+    private static Sponge[] kmacSponges(byte[][] keys, byte[][] customStrings) {
+        if (keys.length != customStrings.length)
+            throw new IllegalArgumentException("Each key needs exactly one custom string.");
+        Sponge[] sponges = new Sponge[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            sponges[i] = kmacSponge(keys[i], customStrings[i]);
+        }
+        return sponges;
+    }
 
-        for (int i = 0; i < xBytes.length; i++) {
-            output[xBytes.length - (i + 1)] = xBytes[i];
+    /**
+     * Absorb a range into every sponge, one cache-sized slice at a time so the
+     * slice stays hot while each sponge consumes it.
+     *
+     * @param sponges  Sponges to feed
+     * @param in       Input byte array
+     * @param off      Starting offset
+     * @param len      Number of bytes
+     */
+    private static void absorbAll(Sponge[] sponges, byte[] in, int off, int len) {
+        int slice = 136 * 64;
+        for (int end = off + len; off < end; off += slice) {
+            int n = Math.min(slice, end - off);
+            for (Sponge sponge : sponges) {
+                sponge.absorb(in, off, n);
+            }
+        }
+    }
+
+    /**
+     * Finish every sponge and collect the outputs.
+     *
+     * @param sponges    Sponges that have absorbed the message
+     * @param bitLength  Bit length
+     * @return           KMACXOF256 hashes
+     */
+    private static byte[][] kmacFinish(Sponge[] sponges, int bitLength) {
+        byte[][] out = new byte[sponges.length][];
+        for (int i = 0; i < sponges.length; i++) {
+            out[i] = kmacFinish(sponges[i], bitLength);
         }
+        return out;
+    }
+
+    /**
+     * Create a cSHAKE256 sponge that has absorbed the KMAC prefix for a key.
+     *
+     * @param key           Key byte array
+     * @param customString  Custom string
+     * @return              Sponge ready to absorb the message
+     */
+    private static Sponge kmacSponge(byte[] key, byte[] customString) {
+        Sponge sponge = new Sponge(512);
+        sponge.absorb(bytePad(concat(encodeString("KMAC".getBytes()), encodeString(customString)), 136));
+        sponge.absorb(bytePad(encodeString(key), 136));
+        return sponge;
+    }
+
+    /**
+     * Absorb the KMAC suffix and squeeze the output.
+     *
+     * @param sponge     Sponge that has absorbed the message
+     * @param bitLength  Bit length
+     * @return           KMACXOF256 hash
+     */
+    private static byte[] kmacFinish(Sponge sponge, int bitLength) {
+        sponge.absorb(rightEncode(BigInteger.ZERO));
+        return sponge.squeeze((byte) 0x04, bitLength);
+    }
 
-        output[0] = (byte) n;
+    /**
+     * Encode BigInteger using right encoding.
+     *
+     * @param x  BigInteger to encode
+     * @return   Encoded byte array
+     */
+    private static byte[] rightEncode(BigInteger x) {
+        byte[] xBytes = minimalBytes(x);
+        byte[] output = new byte[xBytes.length + 1];
+        System.arraycopy(xBytes, 0, output, 0, xBytes.length);
+        output[xBytes.length] = (byte) xBytes.length;
         return output;
     }
 
@@ -258,29 +462,29 @@ public class KMACXOF256 {
      * @return   Encoded byte array
      */
     private static byte[] leftEncode(BigInteger x) {
-        assert 0 < x.compareTo(new BigInteger(String.valueOf(Math.pow(2, 2040))));
-
-        int n = 1;
+        byte[] xBytes = minimalBytes(x);
+        byte[] output = new byte[xBytes.length + 1];
+        output[0] = (byte) xBytes.length;
+        System.arraycopy(xBytes, 0, output, 1, xBytes.length);
+        return output;
+    }
 
-        while (x.compareTo(new BigInteger(String.valueOf((int) Math.pow(2, (8 * n))))) != -1) {
-            n++;
-        }
+    /**
+     * Big-endian bytes of a non-negative BigInteger without a leading zero byte,
+     * but at least one byte long.
+     *
+     * @param x  BigInteger to encode
+     * @return   Big-endian byte array
+     */
+    private static byte[] minimalBytes(BigInteger x) {
+        assert x.signum() >= 0 && x.bitLength() <= 2040;
 
         byte[] xBytes = x.toByteArray();
 
         if ((xBytes[0] == 0) && (xBytes.length > 1)) {
-            byte[] temp = new byte[xBytes.length - 1];
-            System.arraycopy(xBytes, 1, temp, 0, xBytes.length - 1);
-            xBytes = temp;
-        }
-
-        byte[] output = new byte[xBytes.length + 1];
-        for (int i = 0; i < xBytes.length; i++) {
-            output[xBytes.length - (i)] = xBytes[i];
+            xBytes = Arrays.copyOfRange(xBytes, 1, xBytes.length);
         }
-
-        output[0] = (byte) n;
-        return output;
+        return xBytes;
     }
 
     /**
@@ -465,15 +669,7 @@ public class KMACXOF256 {
      * @return       Hexadecimal string
      */
     public static String bytesToHexString(byte[] bytes) {
-        StringBuilder hexString = new StringBuilder();
-        for (byte b : bytes) {
-            String hex = Integer.toHexString(Byte.toUnsignedInt(b));
-            if (hex.length() == 1) {
-                hexString.append('0');
-            }
-            hexString.append(hex);
-        }
-        return hexString.toString();
+        return HexCodec.encode(bytes);
     }
 
     /**
@@ -483,13 +679,196 @@ public class KMACXOF256 {
      * @return   Byte array
      */
     public static byte[] hexStringToBytes(String s) {
-        s = s.replaceAll("\\s", "");
-        byte[] val = new byte[s.length() / 2];
-        for (int i = 0; i < val.length; i++) {
-            int index = i * 2;
-            int j = Integer.parseInt(s.substring(index, index + 2), 16);
-            val[i] = (byte) j;
-        }
-        return val;
+        return HexCodec.decode(s);
+    }
+
+    /**
+     * Incremental Keccak sponge. Input may be absorbed in pieces of any size;
+     * only one rate-sized block is buffered between calls.
+     */
+    static final class Sponge {
+
+        private final int rate;
+        private final byte[] block;
+        private long[] state = new long[25];
+        private int pos;
+
+        /**
+         * Create an empty sponge.
+         *
+         * @param cap  Capacity
+         */
+        Sponge(int cap) {
+            this.rate = 1600 - cap;
+            this.block = new byte[rate / 8];
+        }
+
+        /**
+         * Absorb a whole byte array.
+         *
+         * @param in  Input byte array
+         */
+        void absorb(byte[] in) {
+            absorb(in, 0, in.length);
+        }
+
+        /**
+         * Absorb a range of a byte array.
+         *
+         * @param in   Input byte array
+         * @param off  Starting offset
+         * @param len  Number of bytes
+         */
+        void absorb(byte[] in, int off, int len) {
+            int rateBytes = rate / 8;
+            if (pos > 0) {
+                int n = Math.min(len, rateBytes - pos);
+                System.arraycopy(in, off, block, pos, n);
+                pos += n;
+                off += n;
+                len -= n;
+                if (pos < rateBytes) return;
+                permute(block, 0);
+                pos = 0;
+            }
+            while (len >= rateBytes) {
+                permute(in, off);
+                off += rateBytes;
+                len -= rateBytes;
+            }
+            System.arraycopy(in, off, block, 0, len);
+            pos = len;
+        }
+
+        /**
+         * Pad the buffered input with the domain byte and 10*1 padding, then squeeze.
+         *
+         * @param domain  Domain separation byte including the first padding bit
+         * @param bitLen  Bit length
+         * @return        Pseudorandom output
+         */
+        byte[] squeeze(byte domain, int bitLen) {
+            int rateBytes = rate / 8;
+            Arrays.fill(block, pos, rateBytes, (byte) 0);
+            block[pos] = domain;
+            block[rateBytes - 1] |= (byte) 0x80;
+            permute(block, 0);
+            pos = 0;
+            return KMACXOF256.squeeze(state, bitLen, rate);
+        }
+
+        /**
+         * XOR one rate-sized block into the state and permute.
+         *
+         * @param in   Input byte array
+         * @param off  Starting offset of the block
+         */
+        private void permute(byte[] in, int off) {
+            for (int j = 0; j < rate / 64; j++) {
+                state[j] ^= bytesToWord(off + 8 * j, in);
+            }
+            state = keccak(state, 1600, 24);
+        }
+    }
+
+    /**
+     * Keyed duplex sponge used by {@link #spongeWrap}. Every duplexing call
+     * absorbs at most {@code RHO} bytes followed by a frame byte that marks what
+     * the block holds, then 10*1 padding, then one permutation.
+     */
+    static final class Duplex {
+
+        // Capacity, the same as SHAKE256
+        private static final int CAP = 512;
+
+        // Rate in bytes
+        private static final int RATE_BYTES = (1600 - CAP) / 8;
+
+        // Data bytes per block, leaving room for the frame byte and the final padding bit
+        private static final int RHO = RATE_BYTES - 2;
+
+        // Frame bytes
+        private static final byte KEY_MORE = 0x01;
+        private static final byte KEY_LAST = 0x02;
+        private static final byte BODY_MORE = 0x03;
+        private static final byte BODY_LAST = 0x04;
+        private static final byte TAG_MORE = 0x05;
+
+        private long[] state = new long[25];
+
+        /**
+         * Create a duplex keyed with the given key.
+         *
+         * @param key  Key byte array
+         */
+        Duplex(byte[] key) {
+            int off = 0;
+            while (key.length - off > RHO) {
+                absorb(key, off, RHO);
+                duplex(RHO, KEY_MORE);
+                off += RHO;
+            }
+            absorb(key, off, key.length - off);
+            duplex(key.length - off, KEY_LAST);
+        }
+
+        /**
+         * Encrypt or decrypt a range. The plaintext is absorbed, so the state after
+         * each block is the same for both directions.
+         *
+         * @param in       Input byte array
+         * @param off      Starting offset
+         * @param len      Number of bytes
+         * @param out      Output array, written from index 0
+         * @param encrypt  True if the input is plaintext, false if ciphertext
+         */
+        void crypt(byte[] in, int off, int len, byte[] out, boolean encrypt) {
+            int done = 0;
+            do {
+                int n = Math.min(RHO, len - done);
+                for (int i = 0; i < n; i++) {
+                    int lane = i >>> 3;
+                    int shift = (i & 7) << 3;
+                    int b = in[off + done + i] & 0xFF;
+                    int z = (int) (state[lane] >>> shift) & 0xFF;
+                    int p = encrypt ? b : b ^ z;
+                    out[done + i] = (byte) (b ^ z);
+                    state[lane] ^= (long) p << shift;
+                }
+                done += n;
+                duplex(n, done < len ? BODY_MORE : BODY_LAST);
+            } while (done < len);
+        }
+
+        /**
+         * Squeeze the tag.
+         *
+         * @param out  Output array
+         * @param off  Starting offset in the output
+         * @param len  Tag length in bytes
+         */
+        void tag(byte[] out, int off, int len) {
+            for (int done = 0; done < len; done += RHO) {
+                if (done > 0) duplex(0, TAG_MORE);
+                int n = Math.min(RHO, len - done);
+                for (int i = 0; i < n; i++) {
+                    out[off + done + i] = (byte) (state[i >>> 3] >>> ((i & 7) << 3));
+                }
+            }
+        }
+
+        // XOR a range of bytes into the start of the state
+        private void absorb(byte[] in, int off, int len) {
+            for (int i = 0; i < len; i++) {
+                state[i >>> 3] ^= (in[off + i] & 0xFFL) << ((i & 7) << 3);
+            }
+        }
+
+        // Add the frame byte after len data bytes, pad and permute
+        private void duplex(int len, byte frame) {
+            state[len >>> 3] ^= (frame & 0xFFL) << ((len & 7) << 3);
+            state[(RATE_BYTES - 1) >>> 3] ^= 0x80L << 56;
+            state = keccak(state, 1600, 24);
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,195 @@
+import com.sun.management.ThreadMXBean;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Random;
+
+/**
+ * Performance regression gate for the crypto hot paths. Each operation runs at
+ * a fixed size; its throughput and the bytes it allocates per call (from
+ * {@link ThreadMXBean#getThreadAllocatedBytes(long)}) are compared against the
+ * stored baseline, and the run fails when either budget is exceeded.
+ *
+ * Run with {@code java PerfRegressionTests}. Options (system properties):
+ * <ul>
+ *     <li>{@code perf.baseline} baseline file, default {@code perf-baseline.properties}</li>
+ *     <li>{@code perf.report} JSON report file, default {@code perf-report.json}</li>
+ *     <li>{@code perf.updateBaseline=true} record the current run as the new baseline</li>
+ * </ul>
+ * The baseline file holds {@code <op>.mbps} and {@code <op>.bytesPerOp} for each
+ * operation, plus {@code tolerance.throughput} (allowed fractional slowdown) and
+ * {@code tolerance.allocation} (allowed fractional allocation growth).
+ */
+public class PerfRegressionTests {
+
+    private static final int KIB = 1024;
+    private static final int MIB = 1024 * KIB;
+
+    private static final ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) throws IOException {
+        String baselineFile = System.getProperty("perf.baseline", "perf-baseline.properties");
+        String reportFile = System.getProperty("perf.report", "perf-report.json");
+        boolean update = Boolean.getBoolean("perf.updateBaseline");
+
+        Random random = new Random(487);
+        byte[] key = new byte[32];
+        random.nextBytes(key);
+        byte[] oneMiB = new byte[MIB];
+        random.nextBytes(oneMiB);
+        byte[] quarterMiB = new byte[256 * KIB];
+        random.nextBytes(quarterMiB);
+        byte[][] keys = {key, "tenant-a".getBytes(), "tenant-b".getBytes(), new byte[0]};
+        byte[][] customs = {"T".getBytes(), "T".getBytes(), "T".getBytes(), "D".getBytes()};
+        byte[] cryptogram = TUI.encryptWithKMAC(quarterMiB, "passphrase");
+
+        List<Op> ops = new ArrayList<>();
+        ops.add(new Op("hash-1MiB", MIB, () -> KMACXOF256.KMACXOF256(key, oneMiB, 512, "D".getBytes())));
+        ops.add(new Op("hash-stream-1MiB", MIB,
+                () -> KMACXOF256.KMACXOF256(key, new ByteArrayInputStream(oneMiB), 512, "D".getBytes())));
+        ops.add(new Op("xof-1MiB", MIB, () -> KMACXOF256.KMACXOF256(key, key, 8 * MIB, "X".getBytes())));
+        ops.add(new Op("multikey-4x-256KiB", 4 * quarterMiB.length,
+                () -> KMACXOF256.KMACXOF256(keys, quarterMiB, 512, customs)));
+        ops.add(new Op("encrypt-256KiB", quarterMiB.length, () -> TUI.encryptWithKMAC(quarterMiB, "passphrase")));
+        ops.add(new Op("decrypt-256KiB", quarterMiB.length, () -> TUI.decryptWithKMAC(cryptogram, "passphrase")));
+        byte[] duplexCryptogram = TUI.encryptWithDuplex(quarterMiB, "passphrase");
+        ops.add(new Op("duplex-encrypt-256KiB", quarterMiB.length,
+                () -> TUI.encryptWithDuplex(quarterMiB, "passphrase")));
+        ops.add(new Op("duplex-decrypt-256KiB", quarterMiB.length,
+                () -> TUI.decryptWithDuplex(duplexCryptogram, "passphrase")));
+        ops.add(new Op("hex-encode-1MiB", MIB, () -> HexCodec.encode(oneMiB)));
+        ops.add(new Op("salt-64B", 64, () -> SaltGenerator.nextSalt(64)));
+
+        for (Op op : ops) {
+            op.measure();
+        }
+
+        Properties baseline = load(baselineFile);
+        double throughputTolerance = Double.parseDouble(baseline.getProperty("tolerance.throughput", "0.5"));
+        double allocationTolerance = Double.parseDouble(baseline.getProperty("tolerance.allocation", "0.1"));
+
+        int failures = 0;
+        for (Op op : ops) {
+            String mbps = baseline.getProperty(op.name + ".mbps");
+            String bytesPerOp = baseline.getProperty(op.name + ".bytesPerOp");
+            if (mbps != null) {
+                op.minMbps = Double.parseDouble(mbps) * (1 - throughputTolerance);
+            }
+            if (bytesPerOp != null) {
+                op.maxBytesPerOp = (long) (Long.parseLong(bytesPerOp) * (1 + allocationTolerance));
+            }
+            op.passed = update || (op.mbps >= op.minMbps && op.bytesPerOp <= op.maxBytesPerOp);
+            if (!op.passed) failures++;
+
+            System.out.printf(Locale.ROOT, "%-20s %10.2f MB/s (min %.2f)  %12d B/op (max %d)  %s%n",
+                    op.name, op.mbps, op.minMbps, op.bytesPerOp, op.maxBytesPerOp, op.passed ? "OK" : "FAILED");
+        }
+
+        writeReport(reportFile, ops);
+        if (update) {
+            try (PrintWriter out = new PrintWriter(baselineFile, StandardCharsets.UTF_8)) {
+                out.println("# PerfRegressionTests baseline, regenerate with -Dperf.updateBaseline=true");
+                out.println("tolerance.throughput=" + throughputTolerance);
+                out.println("tolerance.allocation=" + allocationTolerance);
+                for (Op op : ops) {
+                    out.printf(Locale.ROOT, "%s.mbps=%.2f%n", op.name, op.mbps);
+                    out.printf(Locale.ROOT, "%s.bytesPerOp=%d%n", op.name, op.bytesPerOp);
+                }
+            }
+            System.out.println("Baseline written to " + baselineFile);
+        }
+
+        if (failures > 0) {
+            System.out.println(failures + " operation(s) over budget");
+            System.exit(1);
+        }
+        System.out.println("All operations within budget");
+    }
+
+    private static Properties load(String file) throws IOException {
+        Properties props = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            props.load(in);
+        } catch (FileNotFoundException e) {
+            System.out.println("No baseline at " + file + ", reporting only");
+        }
+        return props;
+    }
+
+    private static void writeReport(String file, List<Op> ops) throws IOException {
+        try (PrintWriter out = new PrintWriter(file, StandardCharsets.UTF_8)) {
+            out.println("{");
+            out.println("  \"operations\": [");
+            for (int i = 0; i < ops.size(); i++) {
+                Op op = ops.get(i);
+                out.printf(Locale.ROOT,
+                        "    {\"name\": \"%s\", \"bytes\": %d, \"iterations\": %d, \"mbps\": %.2f, \"minMbps\": %.2f, "
+                                + "\"bytesPerOp\": %d, \"maxBytesPerOp\": %d, \"passed\": %b}%s%n",
+                        op.name, op.bytes, op.iterations, op.mbps, op.minMbps,
+                        op.bytesPerOp, op.maxBytesPerOp, op.passed, i < ops.size() - 1 ? "," : "");
+            }
+            out.println("  ]");
+            out.println("}");
+        }
+    }
+
+    // One measured operation and its budgets
+    private static class Op {
+
+        // Minimum time spent in the measured loop
+        private static final long MIN_NANOS = 500_000_000L;
+
+        final String name;
+        final long bytes;
+        final Task task;
+
+        int iterations;
+        double mbps;
+        long bytesPerOp;
+        double minMbps = 0;
+        long maxBytesPerOp = Long.MAX_VALUE;
+        boolean passed;
+
+        Op(String name, long bytes, Task task) {
+            this.name = name;
+            this.bytes = bytes;
+            this.task = task;
+        }
+
+        // Warm up, then run until MIN_NANOS has passed
+        void measure() throws IOException {
+            long warmupEnd = System.nanoTime() + MIN_NANOS / 2;
+            while (System.nanoTime() < warmupEnd) {
+                task.run();
+            }
+
+            long thread = Thread.currentThread().getId();
+            long allocStart = threads.getThreadAllocatedBytes(thread);
+            long start = System.nanoTime();
+            long elapsed;
+            do {
+                task.run();
+                iterations++;
+                elapsed = System.nanoTime() - start;
+            } while (elapsed < MIN_NANOS);
+            long allocated = threads.getThreadAllocatedBytes(thread) - allocStart;
+
+            mbps = (double) bytes * iterations / MIB / (elapsed / 1e9);
+            bytesPerOp = allocated / iterations;
+        }
+    }
+
+    private interface Task {
+        Object run() throws IOException;
+    }
+}
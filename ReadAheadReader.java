@@ -0,0 +1,128 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ *  Project 1 TCSS 487 With Palo Barreto
+ *
+ * Double-buffered read-ahead over an input stream. A dedicated reader thread
+ * fills a bounded ring of reusable buffers while the caller hashes the ones
+ * already read, so disk I/O and the Keccak permutation run at the same time.
+ *
+ * Buffers handed out by {@link #take()} must be given back with
+ * {@link #recycle(ByteBuffer)} once the caller is done with them.
+ *
+ * @author Arsh Singh
+ * @author Hassan Ali
+ */
+
+public class ReadAheadReader implements AutoCloseable {
+
+    // Default number of buffers in the ring
+    public static final int DEFAULT_BUFFER_COUNT = 4;
+
+    // Default buffer size, a multiple of the SHAKE256 rate (136 bytes)
+    public static final int DEFAULT_BUFFER_SIZE = 136 * 512;
+
+    // Marks the end of the stream in the filled queue
+    private static final ByteBuffer EOF = ByteBuffer.allocate(0);
+
+    private final InputStream in;
+    private final BlockingQueue<ByteBuffer> free;
+    private final BlockingQueue<ByteBuffer> filled;
+    private final Thread reader;
+    private volatile IOException failure;
+    private boolean done;
+
+    /**
+     * Start reading ahead from the given stream.
+     *
+     * @param in           Input stream, read to the end but not closed
+     * @param bufferCount  Number of buffers in the ring
+     * @param bufferSize   Size of each buffer in bytes
+     */
+    public ReadAheadReader(InputStream in, int bufferCount, int bufferSize) {
+        if (bufferCount < 1) throw new IllegalArgumentException("Buffer count must be positive.");
+        if (bufferSize < 1) throw new IllegalArgumentException("Buffer size must be positive.");
+
+        this.in = in;
+        this.free = new ArrayBlockingQueue<>(bufferCount);
+        this.filled = new ArrayBlockingQueue<>(bufferCount + 1);
+        for (int i = 0; i < bufferCount; i++) {
+            free.add(ByteBuffer.allocate(bufferSize));
+        }
+
+        this.reader = new Thread(this::fill, "read-ahead");
+        this.reader.setDaemon(true);
+        this.reader.start();
+    }
+
+    /**
+     * Take the next filled buffer, blocking until one is ready. The bytes are in
+     * {@code array()} from index 0 up to {@code limit()}.
+     *
+     * @return              Filled buffer, or null at the end of the stream
+     * @throws IOException  If the reader thread failed to read the stream
+     */
+    public ByteBuffer take() throws IOException {
+        if (done) return null;
+        ByteBuffer buf;
+        try {
+            buf = filled.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for input.", e);
+        }
+        if (buf == EOF) {
+            done = true;
+            if (failure != null) throw failure;
+            return null;
+        }
+        return buf;
+    }
+
+    /**
+     * Return a buffer obtained from {@link #take()} so it can be refilled.
+     *
+     * @param buf  Buffer to recycle
+     */
+    public void recycle(ByteBuffer buf) {
+        buf.clear();
+        free.add(buf);
+    }
+
+    /**
+     * Stop the reader thread. The underlying stream is left open.
+     */
+    @Override
+    public void close() {
+        reader.interrupt();
+    }
+
+    // Reader thread body: fill free buffers completely until the stream ends
+    private void fill() {
+        try {
+            while (true) {
+                ByteBuffer buf = free.take();
+                byte[] arr = buf.array();
+                int len = 0;
+                int n = 0;
+                while (len < arr.length && (n = in.read(arr, len, arr.length - len)) != -1) {
+                    len += n;
+                }
+                if (len > 0) {
+                    buf.limit(len);
+                    filled.put(buf);
+                }
+                if (n == -1) break;
+            }
+        } catch (IOException e) {
+            failure = e;
+        } catch (InterruptedException e) {
+            return;
+        }
+        filled.add(EOF);
+    }
+}
@@ -0,0 +1,77 @@
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ *  Project 1 TCSS 487 With Palo Barreto
+ *
+ * Salt and nonce generator built on SHAKE256. Each thread keeps its own
+ * 64-byte generator key, so concurrent encryptions never contend on a shared
+ * SecureRandom. Every request squeezes the output together with a fresh key
+ * that replaces the old one, so earlier outputs cannot be recovered from the
+ * current state. The key is reseeded from SecureRandom every
+ * {@link #RESEED_INTERVAL} requests.
+ *
+ * @author Arsh Singh
+ * @author Hassan Ali
+ */
+
+public final class SaltGenerator {
+
+    // Requests served by one thread between reseeds from SecureRandom
+    public static final int RESEED_INTERVAL = 1 << 16;
+
+    // Generator key length in bytes
+    private static final int KEY_BYTES = 64;
+
+    // Shared entropy source, only touched on seeding and reseeding
+    private static final SecureRandom secureRandom = new SecureRandom();
+
+    private static final ThreadLocal<SaltGenerator> local = ThreadLocal.withInitial(SaltGenerator::new);
+
+    private byte[] key = new byte[KEY_BYTES];
+    private int requests;
+
+    private SaltGenerator() {
+        reseed();
+    }
+
+    /**
+     * Fill the array with pseudorandom bytes from the calling thread's generator.
+     *
+     * @param out  Array to fill
+     */
+    public static void nextBytes(byte[] out) {
+        local.get().generate(out);
+    }
+
+    /**
+     * Generate a new salt of the given length.
+     *
+     * @param len  Salt length in bytes
+     * @return     Salt byte array
+     */
+    public static byte[] nextSalt(int len) {
+        byte[] out = new byte[len];
+        nextBytes(out);
+        return out;
+    }
+
+    // Squeeze the output and the next key in one SHAKE256 call, then drop the old key
+    private void generate(byte[] out) {
+        if (++requests > RESEED_INTERVAL) reseed();
+        byte[] stream = KMACXOF256.SHAKE256(key, (KEY_BYTES + out.length) * 8);
+        System.arraycopy(stream, KEY_BYTES, out, 0, out.length);
+        Arrays.fill(key, (byte) 0);
+        key = Arrays.copyOf(stream, KEY_BYTES);
+        Arrays.fill(stream, (byte) 0);
+    }
+
+    // Mix fresh SecureRandom output into the generator key
+    private void reseed() {
+        byte[] fresh = new byte[KEY_BYTES];
+        secureRandom.nextBytes(fresh);
+        key = KMACXOF256.SHAKE256(KMACXOF256.concat(key, fresh), KEY_BYTES * 8);
+        Arrays.fill(fresh, (byte) 0);
+        requests = 0;
+    }
+}
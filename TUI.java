@@ -1,8 +1,10 @@
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
-import java.security.SecureRandom;
 import java.util.*;
 
 /**
@@ -21,7 +23,12 @@ import java.util.*;
 public class TUI {
 
 
-    private static final SecureRandom secureRandom = new SecureRandom();
+    // Read-ahead ring used when hashing files
+    private static final int READ_AHEAD_BUFFERS = ReadAheadReader.DEFAULT_BUFFER_COUNT;
+    private static final int READ_AHEAD_BUFFER_SIZE = ReadAheadReader.DEFAULT_BUFFER_SIZE;
+
+    // Version tag that prefixes single-pass duplex sponge cryptograms
+    private static final byte[] DUPLEX_VERSION = {'S', 'W', 0x00, 0x01};
 
     private static byte[] previousEncrypt;
     private static final String GREETING = "--- Crypto Project 1 ---";
@@ -87,33 +94,31 @@ public class TUI {
 
     // Compute hash based on selected method
     private static void computeHash(String method) {
-        byte[] bytes;
-        String data = null;
+        byte[] bytes = null;
         Scanner userInput = new Scanner(System.in);
 
         if (method.equals("File")) {
             File file = getFileInput();
-            data = readFileToString(file);
+            bytes = hashFile("".getBytes(), file, "D".getBytes());
         } else if (method.equals("Text")) {
             System.out.println("Enter the text to hash: ");
-            data = userInput.nextLine();
+            String data = userInput.nextLine();
+            bytes = KMACXOF256.KMACXOF256("".getBytes(), data.getBytes(), 512, "D".getBytes());
         }
-        assert data != null;
-        bytes = data.getBytes();
-        bytes = KMACXOF256.KMACXOF256("".getBytes(), bytes, 512, "D".getBytes());
+        assert bytes != null;
         System.out.println("Hashed result: " + KMACXOF256.bytesToHexString(bytes));
     }
 
     // Compute authentication tag based on selected method
     private static void computeAuthTag(String method) {
-        byte[] bytes;
+        byte[] bytes = null;
+        File file = null;
         String data = null;
         String passphrase = null;
         Scanner userInput = new Scanner(System.in);
 
         if (method.equals("File")) {
-            File file = getFileInput();
-            data = readFileToString(file);
+            file = getFileInput();
         } else if (method.equals("Text")) {
             System.out.println("Enter the text to hash: ");
             data = userInput.nextLine();
@@ -121,12 +126,27 @@ public class TUI {
 
         System.out.println("Enter a passphrase: ");
         passphrase = userInput.nextLine();
-        assert data != null;
-        bytes = data.getBytes();
-        bytes = KMACXOF256.KMACXOF256(passphrase.getBytes(), bytes, 512, "T".getBytes());
+        if (file != null) {
+            bytes = hashFile(passphrase.getBytes(), file, "T".getBytes());
+        } else if (data != null) {
+            bytes = KMACXOF256.KMACXOF256(passphrase.getBytes(), data.getBytes(), 512, "T".getBytes());
+        }
+        assert bytes != null;
         System.out.println("Authentication tag: " + KMACXOF256.bytesToHexString(bytes));
     }
 
+    // Stream a file through KMACXOF256 with read-ahead so large files are never held in memory
+    private static byte[] hashFile(byte[] key, File theFile, byte[] customString) {
+        byte[] result = null;
+        try (InputStream in = new FileInputStream(theFile)) {
+            result = KMACXOF256.KMACXOF256(key, in, 512, customString,
+                    READ_AHEAD_BUFFERS, READ_AHEAD_BUFFER_SIZE);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return result;
+    }
+
     // Encrypt file with a passphrase
     private static void encryptFile() {
         Scanner input = new Scanner(System.in);
@@ -134,10 +154,25 @@ public class TUI {
         String content = readFileToString(file);
         String passphrase;
         byte[] bytes = content.getBytes();
+        String menu = "Select the encryption mode:\n" + "1) KMAC keystream and tag (two passes).\n"
+                + "2) Duplex sponge (single pass).\n";
+        int mode = getIntegerInRange(input, menu, 1, 2);
+        input.nextLine();
         System.out.println("Enter a passphrase: ");
         passphrase = input.nextLine();
-        previousEncrypt = encryptWithKMAC(bytes, passphrase);
-        System.out.println("Encrypted text: " + KMACXOF256.bytesToHexString(previousEncrypt));
+        previousEncrypt = mode == 1 ? encryptWithKMAC(bytes, passphrase) : encryptWithDuplex(bytes, passphrase);
+        printHex("Encrypted text: ", previousEncrypt);
+    }
+
+    // Print a label followed by the hex form of the bytes without building the whole hex string
+    private static void printHex(String label, byte[] bytes) {
+        System.out.print(label);
+        try {
+            HexCodec.encode(new ByteArrayInputStream(bytes), System.out);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        System.out.println();
     }
 
     // Read file to string
@@ -166,9 +201,8 @@ public class TUI {
     }
 
     // Encrypt data using KMAC algorithm
-    private static byte[] encryptWithKMAC(byte[] m, String pw) {
-        byte[] rand = new byte[64];
-        secureRandom.nextBytes(rand);
+    static byte[] encryptWithKMAC(byte[] m, String pw) {
+        byte[] rand = SaltGenerator.nextSalt(64);
 
         byte[] keka = KMACXOF256.KMACXOF256(KMACXOF256.concat(rand, pw.getBytes()), "".getBytes(), 1024, "S".getBytes());
         byte[] ke = Arrays.copyOfRange(keka, 0, 64);
@@ -189,19 +223,19 @@ public class TUI {
         System.out.println("Enter the passphrase used for encryption: ");
         passphrase = input.nextLine();
         if (method.equals("Previous")) {
-            decryptedBytes = decryptWithKMAC(previousEncrypt, passphrase);
+            decryptedBytes = decryptCryptogram(previousEncrypt, passphrase);
         } else if (method.equals("UserInput")) {
             System.out.println("\nEnter the cryptogram in hex format (one line): \n");
             String cryptogramHex = input.nextLine();
             byte[] hexBytes = KMACXOF256.hexStringToBytes(cryptogramHex);
-            decryptedBytes = decryptWithKMAC(hexBytes, passphrase);
+            decryptedBytes = decryptCryptogram(hexBytes, passphrase);
         }
-        System.out.println("\nDecryption result (Hex format):\n" + KMACXOF256.bytesToHexString(decryptedBytes));
+        printHex("\nDecryption result (Hex format):\n", decryptedBytes);
         System.out.println("\nPlain Text:\n" + new String (decryptedBytes, StandardCharsets.UTF_8));
     }
 
     // Decrypt data using KMAC algorithm
-    private static byte[] decryptWithKMAC(byte[] cryptogram, String pw) {
+    static byte[] decryptWithKMAC(byte[] cryptogram, String pw) {
         byte[] rand = new byte[64];
 
         System.arraycopy(cryptogram, 0, rand, 0, 64);
@@ -229,6 +263,42 @@ public class TUI {
         }
     }
 
+    // Encrypt data in one pass with the duplex sponge, tagged with the duplex format version
+    static byte[] encryptWithDuplex(byte[] m, String pw) {
+        byte[] rand = SaltGenerator.nextSalt(64);
+
+        byte[] k = KMACXOF256.KMACXOF256(KMACXOF256.concat(rand, pw.getBytes()), "".getBytes(), 512, "SW".getBytes());
+        byte[] ct = KMACXOF256.spongeWrap(k, m, 512);
+
+        return KMACXOF256.concat(KMACXOF256.concat(DUPLEX_VERSION, rand), ct);
+    }
+
+    // Decrypt data produced by encryptWithDuplex
+    static byte[] decryptWithDuplex(byte[] cryptogram, String pw) {
+        int header = DUPLEX_VERSION.length + 64;
+        if (cryptogram.length < header + 64 || !Arrays.equals(DUPLEX_VERSION, Arrays.copyOf(cryptogram, DUPLEX_VERSION.length))) {
+            throw new IllegalArgumentException("Not a duplex cryptogram");
+        }
+        byte[] rand = Arrays.copyOfRange(cryptogram, DUPLEX_VERSION.length, header);
+
+        byte[] k = KMACXOF256.KMACXOF256(KMACXOF256.concat(rand, pw.getBytes()), "".getBytes(), 512, "SW".getBytes());
+        return KMACXOF256.spongeUnwrap(k, Arrays.copyOfRange(cryptogram, header, cryptogram.length), 512);
+    }
+
+    // Decrypt either format. A KMAC cryptogram whose random salt happens to start
+    // with the duplex version tag fails the duplex tag check and falls through.
+    static byte[] decryptCryptogram(byte[] cryptogram, String pw) {
+        if (cryptogram.length >= DUPLEX_VERSION.length
+                && Arrays.equals(DUPLEX_VERSION, Arrays.copyOf(cryptogram, DUPLEX_VERSION.length))) {
+            try {
+                return decryptWithDuplex(cryptogram, pw);
+            } catch (IllegalArgumentException e) {
+                // not a duplex cryptogram after all, try the KMAC format
+            }
+        }
+        return decryptWithKMAC(cryptogram, pw);
+    }
+
     // Select decryption method
     private static String selectDecryptionMethod(Scanner userInput) {
         String menu = "Select the decryption method:\n" + "1) Decrypt the previously encrypted text.\n" + "2) Enter the cryptogram manually.\n";